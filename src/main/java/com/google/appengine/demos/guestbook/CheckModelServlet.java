@@ -36,8 +36,16 @@ public class CheckModelServlet extends HttpServlet {
             throws IOException {
         Prediction predictionClient = PredictionClientFactory
                 .getPredictionClient();
-        Insert2 insert2 = predictionClient.trainedmodels()
-                .get(Constants.PROJECT_ID, Constants.MODEL_ID).execute();
+        Insert2 insert2;
+        try {
+            insert2 = PredictionClientFactory.getConcurrencyLimiter()
+                    .execute(predictionClient.trainedmodels()
+                            .get(Constants.PROJECT_ID, Constants.MODEL_ID));
+        } catch (ConcurrencyLimitExceededException e) {
+            resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                    e.getMessage());
+            return;
+        }
         String status = insert2.getTrainingStatus();
         resp.setContentType("text/plain");
         resp.getWriter().println(status);
@@ -0,0 +1,34 @@
+/**
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.demos.guestbook;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a Prediction API call is rejected because too many calls are
+ * already in flight, so the caller can take a fallback path.
+ */
+public class ConcurrencyLimitExceededException extends IOException {
+
+    /**
+     * Creates the exception.
+     * @param message Describes the limit that was exceeded.
+     */
+    public ConcurrencyLimitExceededException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,264 @@
+/**
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.demos.guestbook;
+
+import com.google.api.client.googleapis.services.AbstractGoogleClientRequest;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.HttpStatusCodes;
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Adaptive limit on the number of Prediction API calls in flight at once.
+ *
+ * The limit follows AIMD (additive increase, multiplicative decrease): it
+ * grows by about one per round trip while at least half of it is in use and
+ * successful calls complete within a tolerance of the lowest round trip time
+ * seen. It shrinks by a constant factor when a call is slower than that or
+ * fails with a server or network error, at most once per round trip, since
+ * every call in flight during a latency spike reports the same spike. Client
+ * errors say nothing about backend load and leave the limit alone. A caller
+ * over the limit waits briefly for a slot, then gets a
+ * {@link ConcurrencyLimitExceededException} so it can take a fallback path
+ * instead of piling more load onto a slow backend.
+ */
+public class ConcurrencyLimiter {
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOG =
+            Logger.getLogger(ConcurrencyLimiter.class.getName());
+
+    /**
+     * Factor the limit is multiplied by on a slow or failed call.
+     */
+    private static final double BACKOFF_RATIO = 0.9;
+
+    /**
+     * How many times the lowest round trip time a call may take before it is
+     * treated as a sign of queueing.
+     */
+    private static final double RTT_TOLERANCE = 2.0;
+
+    /**
+     * Number of samples after which the lowest round trip time is re-measured,
+     * so the baseline follows lasting changes in backend latency.
+     */
+    private static final int MIN_RTT_WINDOW = 500;
+
+    /**
+     * HTTP status for rate limiting, which HttpStatusCodes lacks; unlike
+     * other 4xx statuses it is a sign of backend load.
+     */
+    private static final int STATUS_CODE_TOO_MANY_REQUESTS = 429;
+
+    /**
+     * What a finished call says about backend load.
+     */
+    enum Outcome {
+        /** The call succeeded; its round trip time is a latency sample. */
+        SUCCESS,
+        /** The call failed with a server or network error. */
+        DROPPED,
+        /** The call failed with a client error; it says nothing about load. */
+        CLIENT_ERROR
+    }
+
+    /**
+     * Lowest value the limit can shrink to.
+     */
+    private final int minLimit;
+
+    /**
+     * Highest value the limit can grow to.
+     */
+    private final int maxLimit;
+
+    /**
+     * How long a caller over the limit waits for a slot, in nanoseconds.
+     */
+    private final long maxWaitNanos;
+
+    /**
+     * Current limit; fractional so additive increase can be spread over a
+     * round trip.
+     */
+    private double limit;
+
+    /**
+     * Number of calls currently in flight.
+     */
+    private int inFlight;
+
+    /**
+     * Lowest round trip time seen in the current window, in nanoseconds.
+     */
+    private long minRttNanos = Long.MAX_VALUE;
+
+    /**
+     * Successful samples taken in the current window.
+     */
+    private int samples;
+
+    /**
+     * When the limit was last decreased; calls started before then were
+     * already accounted for by that decrease.
+     */
+    private long lastDecreaseNanos;
+
+    /**
+     * Whether the limit has been decreased yet.
+     */
+    private boolean decreased;
+
+    /**
+     * Creates a limiter.
+     * @param initialLimit Limit to start from.
+     * @param minLimit Lowest value the limit can shrink to.
+     * @param maxLimit Highest value the limit can grow to.
+     * @param maxWaitMillis How long a caller over the limit waits for a slot.
+     */
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit,
+            long maxWaitMillis) {
+        Preconditions.checkArgument(0 < minLimit && minLimit <= initialLimit
+                && initialLimit <= maxLimit);
+        Preconditions.checkArgument(maxWaitMillis >= 0);
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+    }
+
+    /**
+     * Executes a Prediction API request once a slot is available.
+     * @param request The request to execute.
+     * @param <T> Type of the response.
+     * @return The response.
+     * @throws ConcurrencyLimitExceededException Thrown if no slot became
+     *                                           available in time.
+     * @throws IOException Thrown on network error with the Prediction API.
+     */
+    public <T> T execute(AbstractGoogleClientRequest<T> request)
+            throws IOException {
+        acquire();
+        long start = System.nanoTime();
+        Outcome outcome = Outcome.DROPPED;
+        try {
+            T response = request.execute();
+            outcome = Outcome.SUCCESS;
+            return response;
+        } catch (HttpResponseException e) {
+            if (e.getStatusCode() < HttpStatusCodes.STATUS_CODE_SERVER_ERROR
+                    && e.getStatusCode() != STATUS_CODE_TOO_MANY_REQUESTS) {
+                outcome = Outcome.CLIENT_ERROR;
+            }
+            throw e;
+        } finally {
+            release(start, System.nanoTime(), outcome);
+        }
+    }
+
+    /**
+     * Takes a slot, waiting up to the configured time for one to free up.
+     * @throws ConcurrencyLimitExceededException Thrown if no slot became
+     *                                           available in time.
+     * @throws InterruptedIOException Thrown if interrupted while waiting.
+     */
+    synchronized void acquire() throws ConcurrencyLimitExceededException,
+            InterruptedIOException {
+        long deadline = System.nanoTime() + maxWaitNanos;
+        while (inFlight >= (int) limit) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new ConcurrencyLimitExceededException(
+                        "Prediction API concurrency limit of " + (int) limit
+                                + " reached");
+            }
+            try {
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(
+                        "Interrupted waiting for a Prediction API slot");
+            }
+        }
+        inFlight++;
+    }
+
+    /**
+     * Frees a slot and adjusts the limit from the call's outcome.
+     * @param startNanos When the call started, from System.nanoTime().
+     * @param endNanos When the call finished, from System.nanoTime().
+     * @param outcome What the call says about backend load.
+     */
+    synchronized void release(long startNanos, long endNanos,
+            Outcome outcome) {
+        int wasInFlight = inFlight;
+        inFlight--;
+        notifyAll();
+        if (outcome == Outcome.CLIENT_ERROR) {
+            return;
+        }
+
+        long rttNanos = endNanos - startNanos;
+        if (outcome == Outcome.SUCCESS) {
+            if (++samples > MIN_RTT_WINDOW) {
+                samples = 1;
+                minRttNanos = Long.MAX_VALUE;
+            }
+            minRttNanos = Math.min(minRttNanos, rttNanos);
+        }
+
+        double previous = limit;
+        if (outcome == Outcome.DROPPED
+                || rttNanos > RTT_TOLERANCE * minRttNanos) {
+            // Calls that started before the last decrease were in flight
+            // during the same congestion, so they must not decrease it again.
+            if (!decreased || startNanos - lastDecreaseNanos >= 0) {
+                limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+                lastDecreaseNanos = endNanos;
+                decreased = true;
+            }
+        } else if (wasInFlight * 2 >= limit) {
+            // Only grow while at least half of the limit is in use, otherwise
+            // it drifts up during quiet periods and protects nothing.
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+        if ((int) limit != (int) previous) {
+            LOG.fine("Prediction API concurrency limit now " + (int) limit);
+        }
+    }
+
+    /**
+     * @return The current limit.
+     */
+    synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * @return The number of calls currently in flight.
+     */
+    synchronized int getInFlight() {
+        return inFlight;
+    }
+}
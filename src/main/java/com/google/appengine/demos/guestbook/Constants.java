@@ -46,4 +46,12 @@ public class Constants {
      */
     public static final String PROJECT_ID = "your-numeric-project-id";
 
+    /**
+     * System property that, when set, points the Prediction client at a
+     * stand-in server at that root URL (e.g. "http://localhost:8089/")
+     * instead of the real Prediction API. Used for load testing.
+     */
+    public static final String PREDICTION_ROOT_URL_PROPERTY =
+            "guestbook.prediction.rootUrl";
+
 }
@@ -16,14 +16,8 @@
 
 package com.google.appengine.demos.guestbook;
 
-import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
-import com.google.api.client.googleapis.util.Utils;
-import com.google.api.client.http.HttpRequestInitializer;
-import com.google.api.client.http.HttpTransport;
+import com.google.api.client.util.Sleeper;
 import com.google.api.services.prediction.Prediction;
-import com.google.api.services.prediction.PredictionScopes;
-
-import java.io.IOException;
 
 /**
  * This factory provides the Prediction Client and allows easier mocking for
@@ -32,16 +26,37 @@ import java.io.IOException;
 public class PredictionClientFactory {
 
     /**
-     * Name of the application from the Cloud console provided to the
-     * Prediction API.
+     * Prediction API calls allowed in flight before the limit has adapted.
+     */
+    private static final int INITIAL_CONCURRENCY = 10;
+
+    /**
+     * Lowest the concurrency limit can shrink to.
      */
-    private static final String APPLICATION_NAME =
-            "google-cloud-prediction-appengine-sample/1.0";
+    private static final int MIN_CONCURRENCY = 1;
 
     /**
-     * Google Prediction API Client.
+     * Highest the concurrency limit can grow to.
      */
-    private static Prediction mPrediction;
+    private static final int MAX_CONCURRENCY = 100;
+
+    /**
+     * How long a call over the concurrency limit waits for a slot.
+     */
+    private static final long MAX_WAIT_MILLIS = 100;
+
+    /**
+     * Google Prediction API Client, created on first use unless a test set
+     * one first.
+     */
+    private static volatile Prediction mPrediction;
+
+    /**
+     * Limits the Prediction API calls in flight across all request threads.
+     */
+    private static ConcurrencyLimiter mConcurrencyLimiter =
+            new ConcurrencyLimiter(INITIAL_CONCURRENCY, MIN_CONCURRENCY,
+                    MAX_CONCURRENCY, MAX_WAIT_MILLIS);
 
     /**
      * Private constructor for utility class.
@@ -58,26 +73,12 @@ public class PredictionClientFactory {
         mPrediction = prediction;
     }
 
-    static {
-        try {
-            GoogleCredential credential =
-                    GoogleCredential.getApplicationDefault();
-            HttpTransport httpTransport = Utils.getDefaultTransport();
-            if (credential.createScopedRequired()) {
-                credential = credential.createScoped(PredictionScopes
-                        .all());
-            }
-            // Use custom HttpRequestInitializer for automatic
-            // retry upon failures.
-            HttpRequestInitializer initializer =
-                    new RetryHttpInitializerWrapper(credential);
-            mPrediction = new Prediction.Builder(httpTransport,
-                    Utils.getDefaultJsonFactory(), initializer)
-                    .setApplicationName(APPLICATION_NAME)
-                    .build();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+    /**
+     * This method lets test classes set the limiter to be used instead.
+     * @param limiter The concurrency limiter to be used, e.g. a saturated one.
+     */
+    static void setConcurrencyLimiter(ConcurrencyLimiter limiter) {
+        mConcurrencyLimiter = limiter;
     }
 
     /**
@@ -85,6 +86,39 @@ public class PredictionClientFactory {
      * @return A prediction API client.
      */
     public static Prediction getPredictionClient() {
-        return mPrediction;
+        Prediction prediction = mPrediction;
+        if (prediction == null) {
+            synchronized (PredictionClientFactory.class) {
+                if (mPrediction == null) {
+                    mPrediction = createDefaultClient();
+                }
+                prediction = mPrediction;
+            }
+        }
+        return prediction;
+    }
+
+    /**
+     * Builds the client for the real Prediction API, or for a stand-in
+     * server if {@link Constants#PREDICTION_ROOT_URL_PROPERTY} is set.
+     * @return A prediction API client.
+     */
+    private static Prediction createDefaultClient() {
+        String rootUrl = System.getProperty(
+                Constants.PREDICTION_ROOT_URL_PROPERTY);
+        if (rootUrl != null) {
+            return PredictionClients.createStandInClient(rootUrl,
+                    Sleeper.DEFAULT);
+        }
+        return PredictionClients.createClient();
+    }
+
+    /**
+     * Get the limiter that Prediction API requests should be executed
+     * through.
+     * @return The shared concurrency limiter.
+     */
+    public static ConcurrencyLimiter getConcurrencyLimiter() {
+        return mConcurrencyLimiter;
     }
 }
@@ -0,0 +1,96 @@
+/**
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.demos.guestbook;
+
+import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
+import com.google.api.client.googleapis.util.Utils;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.util.Sleeper;
+import com.google.api.services.prediction.Prediction;
+import com.google.api.services.prediction.PredictionScopes;
+
+import java.io.IOException;
+
+/**
+ * Builds Prediction API clients. Kept apart from PredictionClientFactory so
+ * tests can build a client without initializing the factory's singleton.
+ */
+public class PredictionClients {
+
+    /**
+     * Name of the application from the Cloud console provided to the
+     * Prediction API.
+     */
+    private static final String APPLICATION_NAME =
+            "google-cloud-prediction-appengine-sample/1.0";
+
+    /**
+     * Private constructor for utility class.
+     */
+    private PredictionClients() {
+
+    }
+
+    /**
+     * Builds a client for the real Prediction API using the application
+     * default credentials.
+     * @return A prediction API client.
+     */
+    static Prediction createClient() {
+        try {
+            GoogleCredential credential =
+                    GoogleCredential.getApplicationDefault();
+            HttpTransport httpTransport = Utils.getDefaultTransport();
+            if (credential.createScopedRequired()) {
+                credential = credential.createScoped(PredictionScopes
+                        .all());
+            }
+            // Use custom HttpRequestInitializer for automatic
+            // retry upon failures.
+            HttpRequestInitializer initializer =
+                    new RetryHttpInitializerWrapper(credential);
+            return new Prediction.Builder(httpTransport,
+                    Utils.getDefaultJsonFactory(), initializer)
+                    .setApplicationName(APPLICATION_NAME)
+                    .build();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Builds a client for a stand-in Prediction API server, such as the one
+     * used for load testing. Requests still go through
+     * RetryHttpInitializerWrapper, authorized with a placeholder token so no
+     * credentials are needed.
+     * @param rootUrl Root URL of the stand-in server.
+     * @param sleeper Used by the retry handlers to back off between attempts.
+     * @return A prediction API client.
+     */
+    static Prediction createStandInClient(String rootUrl, Sleeper sleeper) {
+        GoogleCredential credential = new GoogleCredential()
+                .setAccessToken("stand-in-token");
+        HttpRequestInitializer initializer =
+                new RetryHttpInitializerWrapper(credential, sleeper);
+        return new Prediction.Builder(Utils.getDefaultTransport(),
+                Utils.getDefaultJsonFactory(), initializer)
+                .setApplicationName(APPLICATION_NAME)
+                .setRootUrl(rootUrl)
+                .build();
+    }
+}
@@ -38,6 +38,8 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.util.Date;
+import java.util.concurrent.Callable;
+import java.util.logging.Logger;
 
 /**
  * This servlet provides an endpoint to create new Guestbook posts.
@@ -46,6 +48,38 @@ import java.util.Date;
  */
 public class SignGuestbookServlet extends HttpServlet {
 
+    /**
+     * Logger.
+     */
+    private static final Logger LOG =
+            Logger.getLogger(SignGuestbookServlet.class.getName());
+
+    /**
+     * Project id of the hosted sentiment model.
+     */
+    private static final String SENTIMENT_PROJECT_ID = "414649711441";
+
+    /**
+     * Name of the hosted sentiment model.
+     */
+    private static final String SENTIMENT_MODEL_ID = "sample.sentiment";
+
+    /**
+     * Shares one Prediction API call between concurrent posts of the same
+     * content to the same model, e.g. when a popular phrase is posted by many
+     * users at once.
+     */
+    private static SingleFlight<Output> mPredictions = new SingleFlight<>();
+
+    /**
+     * This method lets test classes set the SingleFlight to be used instead,
+     * e.g. one that never shares calls, to measure what sharing saves.
+     * @param predictions The SingleFlight Prediction API calls go through.
+     */
+    static void setSingleFlight(SingleFlight<Output> predictions) {
+        mPredictions = predictions;
+    }
+
     /**
      * Main endpoint to create a new guestbook post.
      *
@@ -69,8 +103,21 @@ public class SignGuestbookServlet extends HttpServlet {
         Date date = new Date();
         Prediction predictionClient = PredictionClientFactory
                 .getPredictionClient();
-        boolean positive = getSentiment(predictionClient, content);
-        String language = getLanguage(predictionClient, content);
+        // When the Prediction API is saturated, save the post without the
+        // prediction rather than queueing behind it; the page shows a
+        // missing language as Unknown and a missing sentiment as neutral.
+        Boolean positive = null;
+        try {
+            positive = getSentiment(predictionClient, content);
+        } catch (ConcurrencyLimitExceededException e) {
+            LOG.warning("Skipping sentiment prediction: " + e.getMessage());
+        }
+        String language = null;
+        try {
+            language = getLanguage(predictionClient, content);
+        } catch (ConcurrencyLimitExceededException e) {
+            LOG.warning("Skipping language prediction: " + e.getMessage());
+        }
         Entity greeting = new Entity("Greeting", guestbookKey);
         if (user != null) {
             greeting.setProperty("userNickname", user.getNickname());
@@ -100,19 +147,27 @@ public class SignGuestbookServlet extends HttpServlet {
      *                the sentiment of.
      * @return True if the sentiment was determined to be positive, false
      * otherwise.
+     * @throws ConcurrencyLimitExceededException Thrown if too many Prediction
+     *                                           API calls are in flight
      * @throws IOException Thrown on network exception with Prediction API
      */
-    private boolean getSentiment(Prediction prediction, String content)
+    private boolean getSentiment(final Prediction prediction, String content)
             throws IOException {
         Preconditions.checkNotNull(prediction);
         Preconditions.checkNotNull(content);
 
-        Input input = new Input();
-        Input.InputInput inputInput = new Input.InputInput();
-        inputInput.set("csvInstance", Lists.newArrayList(content));
-        input.setInput(inputInput);
-        Output result = prediction.hostedmodels().predict("414649711441",
-                "sample.sentiment", input).execute();
+        final Input input = newInput(content);
+        String key = "hostedmodels/" + SENTIMENT_PROJECT_ID + "/"
+                + SENTIMENT_MODEL_ID + "/" + content;
+        Output result = mPredictions.execute(key, new Callable<Output>() {
+            @Override
+            public Output call() throws IOException {
+                return PredictionClientFactory.getConcurrencyLimiter()
+                        .execute(prediction.hostedmodels().predict(
+                                SENTIMENT_PROJECT_ID, SENTIMENT_MODEL_ID,
+                                input));
+            }
+        });
         String outputStr = result.getOutputLabel();
         return outputStr.equals("positive");
     }
@@ -124,21 +179,42 @@ public class SignGuestbookServlet extends HttpServlet {
      * @param content The string representing the message we want to detect the
      *                language of
      * @return The language the Prediction API has predicted the message is in
+     * @throws ConcurrencyLimitExceededException Thrown if too many Prediction
+     *                                           API calls are in flight
      * @throws IOException Thrown on network exception connecting to
      *                     Prediction API
      */
-    private String getLanguage(Prediction prediction, String content)
+    private String getLanguage(final Prediction prediction, String content)
             throws IOException {
         Preconditions.checkNotNull(prediction);
         Preconditions.checkNotNull(content);
 
+        final Input input = newInput(content);
+        final String projectId = Utils.getProjectId();
+        String key = "trainedmodels/" + projectId + "/" + Constants.MODEL_ID
+                + "/" + content;
+        Output result = mPredictions.execute(key, new Callable<Output>() {
+            @Override
+            public Output call() throws IOException {
+                return PredictionClientFactory.getConcurrencyLimiter()
+                        .execute(prediction.trainedmodels().predict(
+                                projectId, Constants.MODEL_ID, input));
+            }
+        });
+        return result.getOutputLabel();
+    }
+
+    /**
+     * Builds the Prediction API input for a single guestbook post.
+     * @param content The message to make a prediction about.
+     * @return The input to send to the Prediction API.
+     */
+    private Input newInput(String content) {
         Input input = new Input();
         Input.InputInput inputInput = new Input.InputInput();
         inputInput.set("csvInstance", Lists.newArrayList(content));
         input.setInput(inputInput);
-        Output result = prediction.trainedmodels().predict(Utils.getProjectId(),
-                Constants.MODEL_ID, input).execute();
-        return result.getOutputLabel();
+        return input;
     }
 
 }
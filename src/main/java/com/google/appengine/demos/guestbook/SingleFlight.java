@@ -0,0 +1,113 @@
+/**
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.demos.guestbook;
+
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collapses concurrent calls that share the same key into a single call.
+ *
+ * The first caller for a key runs the call on its own thread; callers that
+ * arrive with the same key while it is still in flight wait for and share its
+ * result (or its exception). Once the call completes the key is forgotten, so
+ * this is not a cache: a later caller triggers a fresh call.
+ *
+ * @param <V> Type of the value returned by the call.
+ */
+public class SingleFlight<V> {
+
+    /**
+     * Calls currently in flight, by key.
+     */
+    private final ConcurrentMap<String, FutureTask<V>> inFlight =
+            new ConcurrentHashMap<>();
+
+    /**
+     * @param <V> Type of the value returned by the call.
+     * @return A SingleFlight that runs every call on its own, for comparing
+     * against one that shares calls.
+     */
+    static <V> SingleFlight<V> unshared() {
+        return new SingleFlight<V>() {
+            private final AtomicLong calls = new AtomicLong();
+
+            @Override
+            public V execute(String key, Callable<V> call)
+                    throws IOException {
+                return super.execute(key + "#" + calls.incrementAndGet(),
+                        call);
+            }
+        };
+    }
+
+    /**
+     * Runs the call, or joins an identical call already in flight.
+     * @param key Identifies calls whose results are interchangeable.
+     * @param call The call to run if none is in flight for the key.
+     * @return The result of the call.
+     * @throws IOException Thrown by the call, or if interrupted while waiting
+     *                     for another caller's call to complete.
+     */
+    public V execute(String key, Callable<V> call) throws IOException {
+        Preconditions.checkNotNull(key);
+        Preconditions.checkNotNull(call);
+
+        FutureTask<V> task = new FutureTask<>(call);
+        FutureTask<V> existing = inFlight.putIfAbsent(key, task);
+        if (existing == null) {
+            try {
+                task.run();
+            } finally {
+                inFlight.remove(key, task);
+            }
+            existing = task;
+        }
+        try {
+            return existing.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                    "Interrupted waiting for in-flight call " + key);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * @return The number of distinct calls currently in flight.
+     */
+    int inFlightCount() {
+        return inFlight.size();
+    }
+}
@@ -46,7 +46,15 @@ public class TrainModelServlet extends HttpServlet {
         Insert insert = new Insert();
         insert.set("id", Constants.MODEL_ID);
         insert.set("storageDataLocation", Constants.DATA_FILE);
-        predictionClient.trainedmodels().insert(Utils.getProjectId(), insert);
+        try {
+            PredictionClientFactory.getConcurrencyLimiter().execute(
+                    predictionClient.trainedmodels().insert(
+                            Utils.getProjectId(), insert));
+        } catch (ConcurrencyLimitExceededException e) {
+            resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                    e.getMessage());
+            return;
+        }
         resp.sendRedirect("/checkmodel");
     }
 }
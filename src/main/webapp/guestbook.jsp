@@ -107,9 +107,11 @@
    in ${fn:escapeXml(greeting_language)} </p>
 <%
 
-    if (greeting.getProperty("positive") != null
-            && (Boolean)(greeting.getProperty("positive"))) {
+    if (greeting.getProperty("positive") == null) {
+        // Sentiment was not predicted, e.g. the Prediction API was busy.
         %>
+        <div style="background: #CCCCCC">
+      <% } else if ((Boolean)(greeting.getProperty("positive"))) { %>
         <div style="background: #009933">
       <% } else { %>
         <div style="background: #FF0000">
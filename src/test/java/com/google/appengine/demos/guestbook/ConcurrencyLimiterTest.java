@@ -0,0 +1,236 @@
+/**
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.demos.guestbook;
+
+import com.google.api.services.prediction.Prediction;
+import com.google.api.services.prediction.model.Output;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ConcurrencyLimiterTest {
+
+    private static final long RTT = TimeUnit.MILLISECONDS.toNanos(20);
+
+    private final ConcurrencyLimiter limiter =
+            new ConcurrencyLimiter(4, 1, 8, 0);
+
+    /**
+     * Fake clock, so calls can be given any start time and round trip time.
+     */
+    private long now;
+
+    /**
+     * Runs one call at a time, each starting when the previous one ended.
+     */
+    private void call(long rttNanos, ConcurrencyLimiter.Outcome outcome)
+            throws IOException {
+        limiter.acquire();
+        limiter.release(now, now + rttNanos, outcome);
+        now += rttNanos;
+    }
+
+    @Test
+    public void testRejectsOverLimit() throws IOException {
+        for (int i = 0; i < 4; i++) {
+            limiter.acquire();
+        }
+        try {
+            limiter.acquire();
+            fail("Expected ConcurrencyLimitExceededException");
+        } catch (ConcurrencyLimitExceededException e) {
+            assertEquals(4, limiter.getInFlight());
+        }
+    }
+
+    @Test
+    public void testWaiterGetsReleasedSlot() throws Exception {
+        final ConcurrencyLimiter single =
+                new ConcurrencyLimiter(1, 1, 1, 10000);
+        single.acquire();
+
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    single.acquire();
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            }
+        });
+        waiter.start();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (waiter.getState() != Thread.State.TIMED_WAITING) {
+            assertTrue("Second caller never waited for a slot",
+                    System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+        assertEquals(1, single.getInFlight());
+
+        single.release(now, now + RTT, ConcurrencyLimiter.Outcome.SUCCESS);
+        waiter.join(TimeUnit.SECONDS.toMillis(5));
+
+        assertEquals(Thread.State.TERMINATED, waiter.getState());
+        assertNull(failure.get());
+        assertEquals(1, single.getInFlight());
+    }
+
+    @Test
+    public void testWaitTimesOut() throws IOException {
+        ConcurrencyLimiter single = new ConcurrencyLimiter(1, 1, 1, 50);
+        single.acquire();
+
+        long start = System.nanoTime();
+        try {
+            single.acquire();
+            fail("Expected ConcurrencyLimitExceededException");
+        } catch (ConcurrencyLimitExceededException e) {
+            long waitedMillis = TimeUnit.NANOSECONDS.toMillis(
+                    System.nanoTime() - start);
+            assertTrue("Gave up after " + waitedMillis + "ms",
+                    waitedMillis >= 50);
+            assertEquals(1, single.getInFlight());
+        }
+    }
+
+    @Test
+    public void testGrowsWhileFastAndBusy() throws IOException {
+        for (int round = 0; round < 20; round++) {
+            int slots = limiter.getLimit();
+            for (int i = 0; i < slots; i++) {
+                limiter.acquire();
+            }
+            for (int i = 0; i < slots; i++) {
+                limiter.release(now, now + RTT,
+                        ConcurrencyLimiter.Outcome.SUCCESS);
+            }
+            now += RTT;
+        }
+        assertEquals(8, limiter.getLimit());
+    }
+
+    @Test
+    public void testDoesNotGrowWhenIdle() throws IOException {
+        for (int i = 0; i < 100; i++) {
+            call(RTT, ConcurrencyLimiter.Outcome.SUCCESS);
+        }
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    public void testShrinksWhenLatencyRises() throws IOException {
+        call(RTT, ConcurrencyLimiter.Outcome.SUCCESS);
+        for (int i = 0; i < 20; i++) {
+            call(5 * RTT, ConcurrencyLimiter.Outcome.SUCCESS);
+        }
+        assertEquals(1, limiter.getLimit());
+    }
+
+    @Test
+    public void testShrinksOnceForConcurrentSlowCalls() throws IOException {
+        ConcurrencyLimiter wide = new ConcurrencyLimiter(100, 1, 100, 0);
+        wide.acquire();
+        wide.release(now, now + RTT, ConcurrencyLimiter.Outcome.SUCCESS);
+        now += RTT;
+
+        // A latency spike: 100 calls started together all finish slow.
+        for (int i = 0; i < 100; i++) {
+            wide.acquire();
+        }
+        for (int i = 0; i < 100; i++) {
+            wide.release(now, now + 5 * RTT + i,
+                    ConcurrencyLimiter.Outcome.SUCCESS);
+        }
+        assertEquals(90, wide.getLimit());
+    }
+
+    @Test
+    public void testShrinksOncePerRoundTrip() throws IOException {
+        call(RTT, ConcurrencyLimiter.Outcome.SUCCESS);
+        for (int i = 0; i < 4; i++) {
+            limiter.acquire();
+        }
+        // The second call overlaps the first slow one; the third starts
+        // after it.
+        limiter.release(now, now + 5 * RTT,
+                ConcurrencyLimiter.Outcome.DROPPED);
+        limiter.release(now + 1, now + 5 * RTT + 1,
+                ConcurrencyLimiter.Outcome.DROPPED);
+        limiter.release(now + 5 * RTT + 2, now + 10 * RTT,
+                ConcurrencyLimiter.Outcome.DROPPED);
+        limiter.release(now, now + RTT, ConcurrencyLimiter.Outcome.SUCCESS);
+
+        // 4 * 0.9 * 0.9 = 3.24: two decreases, not three.
+        assertEquals(3, limiter.getLimit());
+    }
+
+    @Test
+    public void testFastClientErrorsDoNotLowerBaseline() throws IOException {
+        for (int i = 0; i < 20; i++) {
+            call(RTT / 10, ConcurrencyLimiter.Outcome.CLIENT_ERROR);
+        }
+        for (int i = 0; i < 20; i++) {
+            call(RTT, ConcurrencyLimiter.Outcome.SUCCESS);
+        }
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    public void testShrinksOnDrop() throws IOException {
+        call(RTT, ConcurrencyLimiter.Outcome.DROPPED);
+        assertTrue(limiter.getLimit() < 4);
+    }
+
+    @Test
+    public void testExecuteReleasesSlot() throws IOException {
+        Prediction.Hostedmodels.Predict request =
+                mock(Prediction.Hostedmodels.Predict.class);
+        Output output = new Output();
+        when(request.execute()).thenReturn(output);
+
+        assertSame(output, limiter.execute(request));
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void testExecuteReleasesSlotOnFailure() throws IOException {
+        Prediction.Hostedmodels.Predict request =
+                mock(Prediction.Hostedmodels.Predict.class);
+        when(request.execute()).thenThrow(new IOException("timeout"));
+
+        try {
+            limiter.execute(request);
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertEquals("timeout", e.getMessage());
+        }
+        assertEquals(0, limiter.getInFlight());
+        assertTrue(limiter.getLimit() < 4);
+    }
+}
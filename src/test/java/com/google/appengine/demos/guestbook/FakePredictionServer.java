@@ -0,0 +1,819 @@
+/**
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.demos.guestbook;
+
+import com.google.api.client.googleapis.util.Utils;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.services.prediction.model.Insert;
+import com.google.api.services.prediction.model.Insert2;
+import com.google.api.services.prediction.model.Output;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Stand-in for the Prediction API v1.6, for load testing the servlets on a
+ * single machine without the real service.
+ *
+ * It serves hostedmodels.predict, trainedmodels.predict, trainedmodels.insert
+ * and trainedmodels.get, each with its own configurable latency distribution
+ * and error rate. Trained models step through a configurable sequence of
+ * training statuses, one step per trainedmodels.get, and can be registered
+ * up front with {@link #addTrainedModel} so predictions work without
+ * training one first.
+ *
+ * Point the app at it by setting the system property named by
+ * {@link Constants#PREDICTION_ROOT_URL_PROPERTY} to {@link #getRootUrl()}.
+ * It can also be run on its own, configured with the system properties
+ * described in {@link #fromProperties}:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.google.appengine.demos.guestbook.FakePredictionServer \
+ *     -DfakePrediction.port=8089
+ * </pre>
+ */
+public class FakePredictionServer {
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOG =
+            Logger.getLogger(FakePredictionServer.class.getName());
+
+    /**
+     * Prefix of the system properties main() is configured with.
+     */
+    private static final String PROPERTY_PREFIX = "fakePrediction.";
+
+    /**
+     * Path the Prediction client prefixes to every request.
+     */
+    private static final String SERVICE_PATH = "/prediction/v1.6/projects/";
+
+    /**
+     * Prediction API methods served by this server.
+     */
+    public enum Method {
+        /** hostedmodels.predict. */
+        HOSTED_PREDICT,
+        /** trainedmodels.predict. */
+        TRAINED_PREDICT,
+        /** trainedmodels.insert. */
+        INSERT,
+        /** trainedmodels.get. */
+        GET
+    }
+
+    /**
+     * Distribution of the time the server waits before answering a request.
+     */
+    public abstract static class Latency {
+
+        /**
+         * @param random Source of randomness.
+         * @return The next delay to apply, in milliseconds.
+         */
+        abstract long nextMillis(Random random);
+
+        /**
+         * @param spec One of none, fixed:MS, uniform:MIN_MS:MAX_MS or
+         *             logNormal:MEDIAN_MS:P99_MS.
+         * @return The distribution the spec describes.
+         */
+        public static Latency parse(String spec) {
+            String[] parts = spec.trim().split(":");
+            if (parts[0].equals("none") && parts.length == 1) {
+                return none();
+            } else if (parts[0].equals("fixed") && parts.length == 2) {
+                return fixed(Long.parseLong(parts[1]));
+            } else if (parts[0].equals("uniform") && parts.length == 3) {
+                return uniform(Long.parseLong(parts[1]),
+                        Long.parseLong(parts[2]));
+            } else if (parts[0].equals("logNormal") && parts.length == 3) {
+                return logNormal(Long.parseLong(parts[1]),
+                        Long.parseLong(parts[2]));
+            }
+            throw new IllegalArgumentException("Unknown latency " + spec);
+        }
+
+        /**
+         * @return A distribution that answers immediately.
+         */
+        public static Latency none() {
+            return fixed(0);
+        }
+
+        /**
+         * @param millis The delay to always apply.
+         * @return A constant distribution.
+         */
+        public static Latency fixed(final long millis) {
+            return new Latency() {
+                @Override
+                long nextMillis(Random random) {
+                    return millis;
+                }
+            };
+        }
+
+        /**
+         * @param minMillis Shortest delay.
+         * @param maxMillis Longest delay.
+         * @return A distribution uniform between the two bounds.
+         */
+        public static Latency uniform(final long minMillis,
+                final long maxMillis) {
+            return new Latency() {
+                @Override
+                long nextMillis(Random random) {
+                    return minMillis + (long) (random.nextDouble()
+                            * (maxMillis - minMillis));
+                }
+            };
+        }
+
+        /**
+         * A long-tailed distribution, which is closer to what a real backend
+         * looks like than a uniform one.
+         * @param medianMillis The 50th percentile delay.
+         * @param p99Millis The 99th percentile delay.
+         * @return A log-normal distribution with the given percentiles.
+         */
+        public static Latency logNormal(final long medianMillis,
+                final long p99Millis) {
+            // 2.326 is the 99th percentile of the standard normal.
+            final double mu = Math.log(medianMillis);
+            final double sigma =
+                    (Math.log(p99Millis) - Math.log(medianMillis)) / 2.326;
+            return new Latency() {
+                @Override
+                long nextMillis(Random random) {
+                    return Math.round(
+                            Math.exp(mu + sigma * random.nextGaussian()));
+                }
+            };
+        }
+    }
+
+    /**
+     * JSON factory used to read and write request bodies.
+     */
+    private final JsonFactory jsonFactory = Utils.getDefaultJsonFactory();
+
+    /**
+     * Latency distribution of each method.
+     */
+    private final Map<Method, Latency> latencies =
+            new EnumMap<>(Method.class);
+
+    /**
+     * Probability of each method answering with an error.
+     */
+    private final Map<Method, Double> errorRates =
+            new EnumMap<>(Method.class);
+
+    /**
+     * Requests received by each method, including failed ones.
+     */
+    private final Map<Method, AtomicInteger> requestCounts =
+            new EnumMap<>(Method.class);
+
+    /**
+     * Injected errors returned by each method.
+     */
+    private final Map<Method, AtomicInteger> errorCounts =
+            new EnumMap<>(Method.class);
+
+    /**
+     * A trained model and how far through its training statuses it is.
+     */
+    private static final class TrainedModel {
+
+        /**
+         * Statuses the model reports, one per trainedmodels.get; the last
+         * one sticks.
+         */
+        private final List<String> statuses;
+
+        /**
+         * Number of times the model has been polled.
+         */
+        private final AtomicInteger polls = new AtomicInteger();
+
+        /**
+         * @param statuses Statuses the model reports.
+         */
+        TrainedModel(List<String> statuses) {
+            this.statuses = statuses;
+        }
+
+        /**
+         * @param index Number of polls before this one.
+         * @return The status reported on that poll.
+         */
+        String status(int index) {
+            return statuses.get(Math.min(index, statuses.size() - 1));
+        }
+
+        /**
+         * @return The status to report on this poll, moving one step on.
+         */
+        String poll() {
+            return status(polls.getAndIncrement());
+        }
+
+        /**
+         * @return The status the model last reported, by trainedmodels.get
+         * or, before the first poll, when it was created.
+         */
+        String lastReported() {
+            return status(Math.max(0, polls.get() - 1));
+        }
+    }
+
+    /**
+     * Trained models, by id.
+     */
+    private final Map<String, TrainedModel> models =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Seed the latency and error of every request is derived from.
+     */
+    private final long seed;
+
+    /**
+     * Threads serving requests, so slow responses do not queue behind each
+     * other.
+     */
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    /**
+     * The underlying HTTP server.
+     */
+    private final HttpServer server;
+
+    /**
+     * Status code of injected errors.
+     */
+    private volatile int errorStatusCode = 503;
+
+    /**
+     * Label returned by hostedmodels.predict.
+     */
+    private volatile String hostedLabel = "positive";
+
+    /**
+     * Label returned by trainedmodels.predict.
+     */
+    private volatile String trainedLabel = "English";
+
+    /**
+     * Training statuses an inserted model goes through, one per
+     * trainedmodels.get; the last one sticks.
+     */
+    private volatile List<String> trainingStatuses =
+            Arrays.asList("RUNNING", "DONE");
+
+    /**
+     * Creates a server listening on the given port of the loopback interface.
+     * @param port Port to listen on, or 0 to pick a free one.
+     * @param seed Seed for latencies and errors. The n-th request to each
+     *             method draws the same latency and error on every run with
+     *             the same seed, whichever thread serves it.
+     * @throws IOException Thrown if the port cannot be bound.
+     */
+    public FakePredictionServer(int port, long seed) throws IOException {
+        this.seed = seed;
+        for (Method method : Method.values()) {
+            latencies.put(method, Latency.none());
+            errorRates.put(method, 0.0);
+            requestCounts.put(method, new AtomicInteger());
+            errorCounts.put(method, new AtomicInteger());
+        }
+        server = HttpServer.create(new InetSocketAddress("localhost", port),
+                0);
+        server.createContext(SERVICE_PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    dispatch(exchange);
+                } catch (IOException | RuntimeException e) {
+                    // Answer rather than drop the connection, which the
+                    // client would only retry.
+                    LOG.log(Level.WARNING, "Failed to serve "
+                            + exchange.getRequestURI(), e);
+                    if (exchange.getResponseCode() == -1) {
+                        send(exchange, 500, "{\"error\":{\"code\":500,"
+                                + "\"message\":\"" + e + "\"}}");
+                    }
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.setExecutor(executor);
+    }
+
+    /**
+     * Starts serving requests.
+     * @return This server.
+     */
+    public FakePredictionServer start() {
+        server.start();
+        return this;
+    }
+
+    /**
+     * Stops serving requests.
+     */
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return The root URL to configure the Prediction client with.
+     */
+    public String getRootUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + "/";
+    }
+
+    /**
+     * @param method The method to configure.
+     * @param latency The latency distribution of the method.
+     * @return This server.
+     */
+    public synchronized FakePredictionServer setLatency(Method method,
+            Latency latency) {
+        latencies.put(method, latency);
+        return this;
+    }
+
+    /**
+     * @param latency The latency distribution of every method.
+     * @return This server.
+     */
+    public FakePredictionServer setLatency(Latency latency) {
+        for (Method method : Method.values()) {
+            setLatency(method, latency);
+        }
+        return this;
+    }
+
+    /**
+     * @param method The method to configure.
+     * @param rate Probability, from 0 to 1, that a request fails.
+     * @return This server.
+     */
+    public synchronized FakePredictionServer setErrorRate(Method method,
+            double rate) {
+        errorRates.put(method, rate);
+        return this;
+    }
+
+    /**
+     * @param rate Probability, from 0 to 1, that a request to any method
+     *             fails.
+     * @return This server.
+     */
+    public FakePredictionServer setErrorRate(double rate) {
+        for (Method method : Method.values()) {
+            setErrorRate(method, rate);
+        }
+        return this;
+    }
+
+    /**
+     * @param statusCode HTTP status of injected errors, 503 by default.
+     * @return This server.
+     */
+    public FakePredictionServer setErrorStatusCode(int statusCode) {
+        this.errorStatusCode = statusCode;
+        return this;
+    }
+
+    /**
+     * @param label Label returned by hostedmodels.predict.
+     * @return This server.
+     */
+    public FakePredictionServer setHostedLabel(String label) {
+        this.hostedLabel = label;
+        return this;
+    }
+
+    /**
+     * @param label Label returned by trainedmodels.predict.
+     * @return This server.
+     */
+    public FakePredictionServer setTrainedLabel(String label) {
+        this.trainedLabel = label;
+        return this;
+    }
+
+    /**
+     * @param statuses Training statuses an inserted model reports, one per
+     *                 trainedmodels.get. The last one is reported from then
+     *                 on, and trainedmodels.predict only succeeds once the
+     *                 model reports DONE. Applies to models inserted from
+     *                 then on.
+     * @return This server.
+     */
+    public FakePredictionServer setTrainingStatuses(String... statuses) {
+        this.trainingStatuses = Arrays.asList(statuses.clone());
+        return this;
+    }
+
+    /**
+     * Registers a trained model as if trainedmodels.insert had been called,
+     * so the app can be load tested without training one first.
+     * @param id The trained model id.
+     * @param statuses Training statuses the model reports, one per
+     *                 trainedmodels.get; DONE if none are given.
+     * @return This server.
+     */
+    public FakePredictionServer addTrainedModel(String id,
+            String... statuses) {
+        models.put(id, new TrainedModel(statuses.length == 0
+                ? Arrays.asList("DONE") : Arrays.asList(statuses.clone())));
+        return this;
+    }
+
+    /**
+     * @param method The method to inspect.
+     * @return Number of requests the method received, including failed ones.
+     */
+    public int getRequestCount(Method method) {
+        return requestCounts.get(method).get();
+    }
+
+    /**
+     * @param method The method to inspect.
+     * @return Number of injected errors the method returned.
+     */
+    public int getErrorCount(Method method) {
+        return errorCounts.get(method).get();
+    }
+
+    /**
+     * Routes a request to the method its path and HTTP verb identify.
+     * @param exchange The request to answer.
+     * @throws IOException Thrown on network error with the client.
+     */
+    private void dispatch(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath()
+                .substring(SERVICE_PATH.length());
+        String[] segments = path.split("/");
+        boolean post = "POST".equals(exchange.getRequestMethod());
+        boolean get = "GET".equals(exchange.getRequestMethod());
+
+        if (post && segments.length == 4 && "hostedmodels".equals(segments[1])
+                && "predict".equals(segments[3])) {
+            if (simulate(Method.HOSTED_PREDICT, exchange)) {
+                predict(exchange, segments[2], hostedLabel);
+            }
+        } else if (post && segments.length == 4
+                && "trainedmodels".equals(segments[1])
+                && "predict".equals(segments[3])) {
+            if (simulate(Method.TRAINED_PREDICT, exchange)) {
+                trainedPredict(exchange, segments[2]);
+            }
+        } else if (post && segments.length == 2
+                && "trainedmodels".equals(segments[1])) {
+            if (simulate(Method.INSERT, exchange)) {
+                insert(exchange);
+            }
+        } else if (get && segments.length == 3
+                && "trainedmodels".equals(segments[1])) {
+            if (simulate(Method.GET, exchange)) {
+                getModel(exchange, segments[2]);
+            }
+        } else {
+            sendError(exchange, 404, "Not Found");
+        }
+    }
+
+    /**
+     * Counts the request, waits for the configured latency and injects an
+     * error at the configured rate.
+     * @param method The method being called.
+     * @param exchange The request to answer.
+     * @return False if an error was injected and the request is answered.
+     * @throws IOException Thrown on network error with the client.
+     */
+    private boolean simulate(Method method, HttpExchange exchange)
+            throws IOException {
+        int index = requestCounts.get(method).incrementAndGet();
+        // A stream of its own per request, so draws do not depend on the
+        // order in which concurrent requests reach the server.
+        Random random = new Random(mix(seed
+                + method.ordinal() * 0x9E3779B97F4A7C15L + index));
+        long delay;
+        double errorRate;
+        synchronized (this) {
+            delay = latencies.get(method).nextMillis(random);
+            errorRate = errorRates.get(method);
+        }
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        if (random.nextDouble() < errorRate) {
+            errorCounts.get(method).incrementAndGet();
+            sendError(exchange, errorStatusCode, "Backend Error");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Scrambles nearby seeds into unrelated ones, since java.util.Random
+     * produces correlated first draws for consecutive seeds.
+     * @param z The value to scramble.
+     * @return The scrambled value (the SplitMix64 finalizer).
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Answers trainedmodels.predict, failing while the model is not trained.
+     * @param exchange The request to answer.
+     * @param id The trained model id.
+     * @throws IOException Thrown on network error with the client.
+     */
+    private void trainedPredict(HttpExchange exchange, String id)
+            throws IOException {
+        TrainedModel model = models.get(id);
+        if (model == null) {
+            sendError(exchange, 404, "No Model found. Model must first be "
+                    + "trained.");
+        } else if (!"DONE".equals(model.lastReported())) {
+            sendError(exchange, 400, "Training running.");
+        } else {
+            predict(exchange, id, trainedLabel);
+        }
+    }
+
+    /**
+     * Answers a predict call with the given label.
+     * @param exchange The request to answer.
+     * @param id The model id.
+     * @param label The predicted label.
+     * @throws IOException Thrown on network error with the client.
+     */
+    private void predict(HttpExchange exchange, String id, String label)
+            throws IOException {
+        drain(requestBody(exchange));
+        Output output = new Output();
+        output.setKind("prediction#output");
+        output.setId(id);
+        output.setOutputLabel(label);
+        send(exchange, 200, jsonFactory.toString(output));
+    }
+
+    /**
+     * Answers trainedmodels.insert, restarting the model's training.
+     * @param exchange The request to answer.
+     * @throws IOException Thrown on network error with the client.
+     */
+    private void insert(HttpExchange exchange) throws IOException {
+        Insert insert = jsonFactory.fromInputStream(requestBody(exchange),
+                StandardCharsets.UTF_8, Insert.class);
+        if (insert.getId() == null) {
+            sendError(exchange, 400, "Required field id is missing.");
+            return;
+        }
+        TrainedModel model = new TrainedModel(trainingStatuses);
+        models.put(insert.getId(), model);
+        send(exchange, 200, jsonFactory.toString(
+                model(insert.getId(), model.status(0))));
+    }
+
+    /**
+     * Answers trainedmodels.get, moving the model one training status on.
+     * @param exchange The request to answer.
+     * @param id The trained model id.
+     * @throws IOException Thrown on network error with the client.
+     */
+    private void getModel(HttpExchange exchange, String id)
+            throws IOException {
+        TrainedModel model = models.get(id);
+        if (model == null) {
+            sendError(exchange, 404, "No Model found.");
+            return;
+        }
+        send(exchange, 200, jsonFactory.toString(model(id, model.poll())));
+    }
+
+    /**
+     * @param id The trained model id.
+     * @param status Its training status.
+     * @return The trained model resource.
+     */
+    private Insert2 model(String id, String status) {
+        Insert2 model = new Insert2();
+        model.setKind("prediction#training");
+        model.setId(id);
+        model.setTrainingStatus(status);
+        return model;
+    }
+
+    /**
+     * Sends an error in the format the Google API client parses.
+     * @param exchange The request to answer.
+     * @param statusCode HTTP status code.
+     * @param message Error message.
+     * @throws IOException Thrown on network error with the client.
+     */
+    private void sendError(HttpExchange exchange, int statusCode,
+            String message) throws IOException {
+        drain(requestBody(exchange));
+        send(exchange, statusCode, "{\"error\":{\"errors\":[{\"domain\":"
+                + "\"global\",\"reason\":\"fake\",\"message\":\"" + message
+                + "\"}],\"code\":" + statusCode + ",\"message\":\"" + message
+                + "\"}}");
+    }
+
+    /**
+     * Sends a JSON response.
+     * @param exchange The request to answer.
+     * @param statusCode HTTP status code.
+     * @param json Response body.
+     * @throws IOException Thrown on network error with the client.
+     */
+    private void send(HttpExchange exchange, int statusCode, String json)
+            throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type",
+                "application/json; charset=UTF-8");
+        exchange.sendResponseHeaders(statusCode, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * The Google API client gzips request bodies by default.
+     * @param exchange The request.
+     * @return The request body, decompressed if needed.
+     * @throws IOException Thrown on network error with the client.
+     */
+    private static InputStream requestBody(HttpExchange exchange)
+            throws IOException {
+        InputStream in = exchange.getRequestBody();
+        if ("gzip".equalsIgnoreCase(exchange.getRequestHeaders()
+                .getFirst("Content-Encoding"))) {
+            return new GZIPInputStream(in);
+        }
+        return in;
+    }
+
+    /**
+     * Reads and discards a request body.
+     * @param in The request body.
+     * @throws IOException Thrown on network error with the client.
+     */
+    private static void drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[4096];
+        while (in.read(buffer) != -1) {
+            continue;
+        }
+    }
+
+    /**
+     * Creates a server from "fakePrediction.*" properties; every one is
+     * optional:
+     * <ul>
+     * <li>port: port to listen on, 8089 by default.</li>
+     * <li>seed: seed for latencies and errors, 42 by default.</li>
+     * <li>latency: latency of every method, as none, fixed:MS,
+     * uniform:MIN_MS:MAX_MS or logNormal:MEDIAN_MS:P99_MS;
+     * logNormal:100:1000 by default.</li>
+     * <li>latency.METHOD: latency of one {@link Method}, e.g.
+     * latency.HOSTED_PREDICT.</li>
+     * <li>errorRate: probability from 0 to 1 of an error on every method,
+     * 0.01 by default.</li>
+     * <li>errorRate.METHOD: error rate of one {@link Method}.</li>
+     * <li>errorStatus: HTTP status of injected errors, 503 by default.</li>
+     * <li>trainingStatuses: comma-separated statuses an inserted model goes
+     * through, RUNNING,DONE by default.</li>
+     * <li>trainedModels: comma-separated ids of models that exist from the
+     * start, {@link Constants#MODEL_ID} by default; empty for none.</li>
+     * <li>trainedModelStatuses: comma-separated statuses those models go
+     * through, DONE by default.</li>
+     * </ul>
+     * @param properties Properties to read, typically the system properties.
+     * @return A configured server, not yet started.
+     * @throws IOException Thrown if the port cannot be bound.
+     */
+    public static FakePredictionServer fromProperties(Properties properties)
+            throws IOException {
+        FakePredictionServer server = new FakePredictionServer(
+                Integer.parseInt(property(properties, "port", "8089")),
+                Long.parseLong(property(properties, "seed", "42")));
+        Latency latency =
+                Latency.parse(property(properties, "latency",
+                        "logNormal:100:1000"));
+        double errorRate = Double.parseDouble(
+                property(properties, "errorRate", "0.01"));
+        for (Method method : Method.values()) {
+            String methodLatency = properties.getProperty(
+                    PROPERTY_PREFIX + "latency." + method);
+            server.setLatency(method, methodLatency == null
+                    ? latency : Latency.parse(methodLatency));
+            server.setErrorRate(method, Double.parseDouble(property(
+                    properties, "errorRate." + method,
+                    String.valueOf(errorRate))));
+        }
+        server.setErrorStatusCode(Integer.parseInt(
+                property(properties, "errorStatus", "503")));
+        server.setTrainingStatuses(list(properties, "trainingStatuses",
+                "RUNNING,DONE"));
+        String[] modelStatuses = list(properties, "trainedModelStatuses",
+                "DONE");
+        for (String id : list(properties, "trainedModels",
+                Constants.MODEL_ID)) {
+            if (!id.isEmpty()) {
+                server.addTrainedModel(id, modelStatuses);
+            }
+        }
+        return server;
+    }
+
+    /**
+     * @param properties Properties to read.
+     * @param name Property name, without the "fakePrediction." prefix.
+     * @param defaultValue Value to use if the property is not set.
+     * @return The property value.
+     */
+    private static String property(Properties properties, String name,
+            String defaultValue) {
+        return properties.getProperty(PROPERTY_PREFIX + name, defaultValue)
+                .trim();
+    }
+
+    /**
+     * @param properties Properties to read.
+     * @param name Property name, without the "fakePrediction." prefix.
+     * @param defaultValue Value to use if the property is not set.
+     * @return The comma-separated values of the property.
+     */
+    private static String[] list(Properties properties, String name,
+            String defaultValue) {
+        return property(properties, name, defaultValue).split("\\s*,\\s*");
+    }
+
+    /**
+     * Runs the server until the process is killed, configured from the
+     * "fakePrediction.*" system properties described in
+     * {@link #fromProperties}.
+     * @param args Not used.
+     * @throws IOException Thrown if the port cannot be bound.
+     */
+    public static void main(String[] args) throws IOException {
+        FakePredictionServer server =
+                fromProperties(System.getProperties()).start();
+        LOG.info("Fake Prediction API listening on " + server.getRootUrl());
+    }
+}
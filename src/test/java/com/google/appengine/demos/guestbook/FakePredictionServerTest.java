@@ -0,0 +1,244 @@
+/**
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.demos.guestbook;
+
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.util.Sleeper;
+import com.google.api.services.prediction.Prediction;
+import com.google.api.services.prediction.model.Input;
+import com.google.api.services.prediction.model.Insert;
+import com.google.api.services.prediction.model.Output;
+import com.google.common.collect.Lists;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Properties;
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+public class FakePredictionServerTest {
+
+    private static final String PROJECT_ID = "test-project";
+
+    private static final String MODEL_ID = "test-model";
+
+    private static final Sleeper NO_SLEEP = new Sleeper() {
+        @Override
+        public void sleep(long millis) {
+        }
+    };
+
+    private FakePredictionServer server;
+
+    private Prediction prediction;
+
+    @Before
+    public void startServer() throws IOException {
+        server = new FakePredictionServer(0, 42).start();
+        prediction = PredictionClients.createStandInClient(
+                server.getRootUrl(), NO_SLEEP);
+    }
+
+    @After
+    public void stopServer() {
+        server.stop();
+    }
+
+    private Input input(String content) {
+        Input input = new Input();
+        Input.InputInput inputInput = new Input.InputInput();
+        inputInput.set("csvInstance", Lists.newArrayList(content));
+        input.setInput(inputInput);
+        return input;
+    }
+
+    private void insertModel() throws IOException {
+        Insert insert = new Insert();
+        insert.setId(MODEL_ID);
+        insert.setStorageDataLocation("bucket/language_id.txt");
+        prediction.trainedmodels().insert(PROJECT_ID, insert).execute();
+    }
+
+    @Test
+    public void testHostedPredict() throws IOException {
+        server.setHostedLabel("negative");
+
+        Output output = prediction.hostedmodels().predict("414649711441",
+                "sample.sentiment", input("Test Content")).execute();
+
+        assertEquals("negative", output.getOutputLabel());
+        assertEquals(1, server.getRequestCount(
+                FakePredictionServer.Method.HOSTED_PREDICT));
+    }
+
+    @Test
+    public void testTrainingStatusTransitions() throws IOException {
+        server.setTrainingStatuses("RUNNING", "RUNNING", "DONE");
+        insertModel();
+
+        assertEquals("RUNNING", prediction.trainedmodels()
+                .get(PROJECT_ID, MODEL_ID).execute().getTrainingStatus());
+        assertEquals("RUNNING", prediction.trainedmodels()
+                .get(PROJECT_ID, MODEL_ID).execute().getTrainingStatus());
+        assertEquals("DONE", prediction.trainedmodels()
+                .get(PROJECT_ID, MODEL_ID).execute().getTrainingStatus());
+        assertEquals("DONE", prediction.trainedmodels()
+                .get(PROJECT_ID, MODEL_ID).execute().getTrainingStatus());
+    }
+
+    private void assertPredictRejectedWhileTraining() throws IOException {
+        try {
+            prediction.trainedmodels().predict(PROJECT_ID, MODEL_ID,
+                    input("Bonjour")).execute();
+            fail("Expected a 400 while the model is training");
+        } catch (GoogleJsonResponseException e) {
+            assertEquals(400, e.getStatusCode());
+        }
+    }
+
+    @Test
+    public void testTrainedPredictWaitsForTraining() throws IOException {
+        server.setTrainingStatuses("RUNNING", "DONE");
+        insertModel();
+
+        assertPredictRejectedWhileTraining();
+        assertEquals("RUNNING", prediction.trainedmodels()
+                .get(PROJECT_ID, MODEL_ID).execute().getTrainingStatus());
+        assertPredictRejectedWhileTraining();
+        assertEquals("DONE", prediction.trainedmodels()
+                .get(PROJECT_ID, MODEL_ID).execute().getTrainingStatus());
+
+        server.setTrainedLabel("French");
+        Output output = prediction.trainedmodels().predict(PROJECT_ID,
+                MODEL_ID, input("Bonjour")).execute();
+        assertEquals("French", output.getOutputLabel());
+    }
+
+    @Test
+    public void testPreRegisteredModel() throws IOException {
+        server.addTrainedModel(MODEL_ID);
+
+        assertEquals("DONE", prediction.trainedmodels()
+                .get(PROJECT_ID, MODEL_ID).execute().getTrainingStatus());
+        Output output = prediction.trainedmodels().predict(PROJECT_ID,
+                MODEL_ID, input("Hello")).execute();
+        assertEquals("English", output.getOutputLabel());
+    }
+
+    @Test
+    public void testPreRegisteredModelStatuses() throws IOException {
+        server.addTrainedModel(MODEL_ID, "RUNNING", "DONE");
+
+        assertPredictRejectedWhileTraining();
+        assertEquals("RUNNING", prediction.trainedmodels()
+                .get(PROJECT_ID, MODEL_ID).execute().getTrainingStatus());
+        assertEquals("DONE", prediction.trainedmodels()
+                .get(PROJECT_ID, MODEL_ID).execute().getTrainingStatus());
+        prediction.trainedmodels().predict(PROJECT_ID, MODEL_ID,
+                input("Hello")).execute();
+    }
+
+    @Test
+    public void testRetryHttpInitializerWrapperRetriesInjectedErrors()
+            throws IOException {
+        server.setErrorRate(FakePredictionServer.Method.HOSTED_PREDICT, 0.3);
+        final int calls = 20;
+
+        for (int i = 0; i < calls; i++) {
+            Output output = prediction.hostedmodels().predict("414649711441",
+                    "sample.sentiment", input("Test Content")).execute();
+            assertEquals("positive", output.getOutputLabel());
+        }
+
+        int errors = server.getErrorCount(
+                FakePredictionServer.Method.HOSTED_PREDICT);
+        assertTrue("Expected some injected errors", errors > 0);
+        assertEquals(calls + errors, server.getRequestCount(
+                FakePredictionServer.Method.HOSTED_PREDICT));
+    }
+
+    @Test
+    public void testLatency() throws IOException {
+        server.setLatency(FakePredictionServer.Latency.fixed(50));
+
+        long start = System.nanoTime();
+        prediction.hostedmodels().predict("414649711441", "sample.sentiment",
+                input("Test Content")).execute();
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+        assertTrue("Expected at least 50ms, was " + elapsedMillis,
+                elapsedMillis >= 50);
+    }
+
+    @Test
+    public void testFromProperties() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("fakePrediction.port", "0");
+        properties.setProperty("fakePrediction.latency", "none");
+        properties.setProperty("fakePrediction.errorRate", "0");
+        properties.setProperty("fakePrediction.errorRate.HOSTED_PREDICT",
+                "1");
+        properties.setProperty("fakePrediction.errorStatus", "400");
+        properties.setProperty("fakePrediction.trainedModels", "a, b");
+        properties.setProperty("fakePrediction.trainedModelStatuses",
+                "RUNNING,DONE");
+        FakePredictionServer configured =
+                FakePredictionServer.fromProperties(properties).start();
+        try {
+            Prediction client = PredictionClients.createStandInClient(
+                    configured.getRootUrl(), NO_SLEEP);
+            try {
+                client.hostedmodels().predict("414649711441",
+                        "sample.sentiment", input("Test Content")).execute();
+                fail("Expected the injected 400");
+            } catch (GoogleJsonResponseException e) {
+                assertEquals(400, e.getStatusCode());
+            }
+            assertEquals("RUNNING", client.trainedmodels().get(PROJECT_ID, "a")
+                    .execute().getTrainingStatus());
+            assertEquals("RUNNING", client.trainedmodels().get(PROJECT_ID, "b")
+                    .execute().getTrainingStatus());
+            assertEquals("DONE", client.trainedmodels().get(PROJECT_ID, "b")
+                    .execute().getTrainingStatus());
+        } finally {
+            configured.stop();
+        }
+    }
+
+    @Test
+    public void testParseLatency() {
+        Random random = new Random(0);
+        assertEquals(0, FakePredictionServer.Latency.parse("none")
+                .nextMillis(random));
+        assertEquals(50, FakePredictionServer.Latency.parse("fixed:50")
+                .nextMillis(random));
+        long uniform = FakePredictionServer.Latency.parse("uniform:10:20")
+                .nextMillis(random);
+        assertTrue(uniform >= 10 && uniform <= 20);
+        try {
+            FakePredictionServer.Latency.parse("gaussian:10");
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("gaussian"));
+        }
+    }
+}
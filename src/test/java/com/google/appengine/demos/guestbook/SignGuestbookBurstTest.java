@@ -0,0 +1,176 @@
+/**
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.demos.guestbook;
+
+import com.google.api.client.util.Sleeper;
+import com.google.api.services.prediction.model.Output;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.apphosting.api.ApiProxy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Logger;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Load test: a burst of identical posts against FakePredictionServer,
+ * counting the Prediction API calls that reach it with and without
+ * single-flight.
+ */
+public class SignGuestbookBurstTest {
+
+    private static final Logger LOG =
+            Logger.getLogger(SignGuestbookBurstTest.class.getName());
+
+    private static final int POSTS = 32;
+
+    private static final long LATENCY_MILLIS = 200;
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig())
+                    .setEnvIsLoggedIn(true)
+                    .setEnvAuthDomain("localhost")
+                    .setEnvEmail("test@localhost");
+
+    private FakePredictionServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        helper.setUp();
+        server = new FakePredictionServer(0, 42)
+                .setLatency(FakePredictionServer.Latency.fixed(LATENCY_MILLIS))
+                .addTrainedModel(Constants.MODEL_ID)
+                .start();
+        PredictionClientFactory.setPrediction(
+                PredictionClients.createStandInClient(server.getRootUrl(),
+                        new Sleeper() {
+                            @Override
+                            public void sleep(long millis) {
+                            }
+                        }));
+        // Room for every post, so the limiter does not hide what
+        // single-flight saves.
+        PredictionClientFactory.setConcurrencyLimiter(
+                new ConcurrencyLimiter(POSTS, POSTS, POSTS, 0));
+    }
+
+    @After
+    public void tearDown() {
+        SignGuestbookServlet.setSingleFlight(new SingleFlight<Output>());
+        server.stop();
+        helper.tearDown();
+    }
+
+    /**
+     * Sends POSTS identical posts at once and waits for all of them.
+     * @return Prediction API calls the burst made, hosted then trained.
+     */
+    private int[] burst(String guestbookName) throws Exception {
+        int hostedBefore = server.getRequestCount(
+                FakePredictionServer.Method.HOSTED_PREDICT);
+        int trainedBefore = server.getRequestCount(
+                FakePredictionServer.Method.TRAINED_PREDICT);
+
+        final String url = "/guestbook.jsp?guestbookName=" + guestbookName;
+        final HttpServletRequest request = mock(HttpServletRequest.class);
+        final HttpServletResponse response = mock(HttpServletResponse.class);
+        when(request.getParameter("guestbookName")).thenReturn(guestbookName);
+        when(request.getParameter("content")).thenReturn("Popular phrase");
+        when(response.encodeRedirectURL(url)).thenReturn(url);
+
+        final SignGuestbookServlet servlet = new SignGuestbookServlet();
+        final ApiProxy.Environment environment =
+                ApiProxy.getCurrentEnvironment();
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Throwable> failures = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < POSTS; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    ApiProxy.setEnvironmentForCurrentThread(environment);
+                    try {
+                        start.await();
+                        servlet.doPost(request, response);
+                    } catch (Throwable t) {
+                        synchronized (failures) {
+                            failures.add(t);
+                        }
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        long started = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsedMillis = (System.nanoTime() - started) / 1000000;
+
+        assertTrue("Posts failed: " + failures, failures.isEmpty());
+        assertEquals(POSTS, DatastoreServiceFactory.getDatastoreService()
+                .prepare(new Query("Greeting",
+                        KeyFactory.createKey("Guestbook", guestbookName)))
+                .countEntities(FetchOptions.Builder.withDefaults()));
+
+        int[] calls = {
+            server.getRequestCount(FakePredictionServer.Method.HOSTED_PREDICT)
+                    - hostedBefore,
+            server.getRequestCount(FakePredictionServer.Method.TRAINED_PREDICT)
+                    - trainedBefore
+        };
+        LOG.info(guestbookName + ": " + POSTS + " identical posts made "
+                + calls[0] + " sentiment and " + calls[1]
+                + " language calls in " + elapsedMillis + "ms");
+        return calls;
+    }
+
+    @Test
+    public void testSingleFlightReducesOutboundCalls() throws Exception {
+        SignGuestbookServlet.setSingleFlight(
+                SingleFlight.<Output>unshared());
+        int[] unshared = burst("Unshared");
+
+        SignGuestbookServlet.setSingleFlight(new SingleFlight<Output>());
+        int[] shared = burst("Shared");
+
+        assertEquals(POSTS, unshared[0]);
+        assertEquals(POSTS, unshared[1]);
+        // Every post arrives within one call's latency of the first, so all
+        // but a few late stragglers share the first call.
+        assertTrue("Sentiment calls: " + shared[0], shared[0] < POSTS / 4);
+        assertTrue("Language calls: " + shared[1], shared[1] < POSTS / 4);
+    }
+}
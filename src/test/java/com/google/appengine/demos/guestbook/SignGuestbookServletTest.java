@@ -22,22 +22,30 @@ import com.google.api.services.prediction.model.Output;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
 import com.google.appengine.api.datastore.Query;
 import com.google.appengine.api.users.User;
 import com.google.appengine.api.users.UserServiceFactory;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.apphosting.api.ApiProxy;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
 import static junit.framework.Assert.assertTrue;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.*;
@@ -50,6 +58,10 @@ public class SignGuestbookServletTest {
 
     private Prediction.Hostedmodels mockHostedModel;
 
+    private Prediction.Trainedmodels.Predict mockTrainedPrediction;
+
+    private Prediction.Hostedmodels.Predict mockHostedPrediction;
+
     private final LocalServiceTestHelper helper =
             new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig())
                     .setEnvIsLoggedIn(true)
@@ -61,6 +73,8 @@ public class SignGuestbookServletTest {
         helper.setUp();
         signGuestbookServlet = new SignGuestbookServlet();
         PredictionClientFactory.setPrediction(getMockPredictionClient());
+        PredictionClientFactory.setConcurrencyLimiter(
+                new ConcurrencyLimiter(10, 1, 100, 100));
     }
 
     @After
@@ -74,7 +88,7 @@ public class SignGuestbookServletTest {
 
         mockHostedModel =
                 mock(Prediction.Hostedmodels.class);
-        Prediction.Hostedmodels.Predict mockHostedPrediction =
+        mockHostedPrediction =
                 mock(Prediction.Hostedmodels.Predict.class);
         Output mockHostedOutput = new Output();
 
@@ -86,7 +100,7 @@ public class SignGuestbookServletTest {
 
         mockTrainedModels =
                 mock(Prediction.Trainedmodels.class);
-        Prediction.Trainedmodels.Predict mockTrainedPrediction =
+        mockTrainedPrediction =
                 mock(Prediction.Trainedmodels.Predict.class);
         Output mockTrainedOutput = new Output();
 
@@ -143,4 +157,137 @@ public class SignGuestbookServletTest {
         verify(mockHostedModel).predict(anyString(), anyString(), Mockito
                 .<Input>any());
     }
+
+    @Test
+    public void testDoPostSavesWithoutPredictionsWhenSaturated()
+            throws IOException {
+        ConcurrencyLimiter saturated = new ConcurrencyLimiter(1, 1, 1, 0);
+        saturated.acquire();
+        PredictionClientFactory.setConcurrencyLimiter(saturated);
+
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        String EXPECTED_URL = "/guestbook.jsp?guestbookName=TestGuestbook";
+        when(request.getParameter("guestbookName"))
+                .thenReturn("TestGuestbook");
+        when(request.getParameter("content")).thenReturn("Test Content");
+        when(response.encodeRedirectURL(EXPECTED_URL)).thenReturn
+                (EXPECTED_URL);
+
+        signGuestbookServlet.doPost(request, response);
+
+        verify(response).sendRedirect(EXPECTED_URL);
+        verify(mockHostedPrediction, never()).execute();
+        verify(mockTrainedPrediction, never()).execute();
+
+        Entity greeting = DatastoreServiceFactory.getDatastoreService()
+                .prepare(new Query()).asSingleEntity();
+        assertEquals("Test Content", greeting.getProperty("content"));
+        assertTrue(greeting.hasProperty("positive"));
+        assertNull(greeting.getProperty("positive"));
+        assertTrue(greeting.hasProperty("language"));
+        assertNull(greeting.getProperty("language"));
+    }
+
+    /**
+     * Blocks a mocked Prediction call until released, so concurrent posts
+     * can pile up behind it.
+     */
+    private Answer<Output> blockUntil(final CountDownLatch release,
+            final String label) {
+        return new Answer<Output>() {
+            @Override
+            public Output answer(InvocationOnMock invocation)
+                    throws InterruptedException {
+                release.await();
+                Output output = new Output();
+                output.setOutputLabel(label);
+                return output;
+            }
+        };
+    }
+
+    /**
+     * Waits until every thread is parked inside the given servlet method,
+     * either running the shared Prediction call or waiting for its result.
+     */
+    private void awaitAllWaitingIn(List<Thread> threads, String method)
+            throws InterruptedException {
+        for (Thread thread : threads) {
+            while (!isWaitingIn(thread, method)) {
+                Thread.sleep(1);
+            }
+        }
+    }
+
+    private boolean isWaitingIn(Thread thread, String method) {
+        if (thread.getState() != Thread.State.WAITING) {
+            return false;
+        }
+        for (StackTraceElement frame : thread.getStackTrace()) {
+            if (frame.getClassName().equals(
+                    SignGuestbookServlet.class.getName())
+                    && frame.getMethodName().equals(method)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void testConcurrentIdenticalPostsSharePredictions()
+            throws Exception {
+        final int posts = 8;
+        final String EXPECTED_URL = "/guestbook.jsp?guestbookName=Burst";
+        final HttpServletRequest request = mock(HttpServletRequest.class);
+        final HttpServletResponse response = mock(HttpServletResponse.class);
+        when(request.getParameter("guestbookName")).thenReturn("Burst");
+        when(request.getParameter("content")).thenReturn("Popular phrase");
+        when(response.encodeRedirectURL(EXPECTED_URL)).thenReturn
+                (EXPECTED_URL);
+
+        CountDownLatch releaseSentiment = new CountDownLatch(1);
+        CountDownLatch releaseLanguage = new CountDownLatch(1);
+        when(mockHostedPrediction.execute())
+                .thenAnswer(blockUntil(releaseSentiment, "positive"));
+        when(mockTrainedPrediction.execute())
+                .thenAnswer(blockUntil(releaseLanguage, "english"));
+
+        final ApiProxy.Environment environment =
+                ApiProxy.getCurrentEnvironment();
+        final List<Throwable> failures = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < posts; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    ApiProxy.setEnvironmentForCurrentThread(environment);
+                    try {
+                        signGuestbookServlet.doPost(request, response);
+                    } catch (Throwable t) {
+                        synchronized (failures) {
+                            failures.add(t);
+                        }
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        awaitAllWaitingIn(threads, "getSentiment");
+        releaseSentiment.countDown();
+        awaitAllWaitingIn(threads, "getLanguage");
+        releaseLanguage.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertTrue("Posts failed: " + failures, failures.isEmpty());
+        verify(mockHostedPrediction, times(1)).execute();
+        verify(mockTrainedPrediction, times(1)).execute();
+        assertEquals(posts, DatastoreServiceFactory.getDatastoreService()
+                .prepare(new Query("Greeting")).countEntities(
+                        FetchOptions.Builder.withDefaults()));
+    }
 }
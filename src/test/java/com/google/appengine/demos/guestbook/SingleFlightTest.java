@@ -0,0 +1,171 @@
+/**
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.demos.guestbook;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.fail;
+
+public class SingleFlightTest {
+
+    private static final int CALLERS = 16;
+
+    private final SingleFlight<String> singleFlight = new SingleFlight<>();
+
+    private final AtomicInteger calls = new AtomicInteger();
+
+    private final CountDownLatch started = new CountDownLatch(1);
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private Callable<String> blockingCall(final String result,
+            final IOException error) {
+        return new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                calls.incrementAndGet();
+                started.countDown();
+                release.await();
+                if (error != null) {
+                    throw error;
+                }
+                return result;
+            }
+        };
+    }
+
+    /**
+     * Starts CALLERS threads calling the same key, releases the in-flight call
+     * once all of them are waiting on it and collects what each one saw.
+     */
+    private List<Object> burst(final String key, final Callable<String> call)
+            throws InterruptedException {
+        final List<Object> outcomes = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < CALLERS; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Object outcome;
+                    try {
+                        outcome = singleFlight.execute(key, call);
+                    } catch (IOException e) {
+                        outcome = e;
+                    }
+                    synchronized (outcomes) {
+                        outcomes.add(outcome);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+            if (i == 0) {
+                started.await();
+            }
+        }
+        for (Thread thread : threads.subList(1, threads.size())) {
+            while (thread.getState() != Thread.State.WAITING) {
+                Thread.sleep(1);
+            }
+        }
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return outcomes;
+    }
+
+    @Test
+    public void testConcurrentCallersShareOneCall() throws Exception {
+        List<Object> outcomes = burst("key", blockingCall("positive", null));
+
+        assertEquals(1, calls.get());
+        assertEquals(CALLERS, outcomes.size());
+        for (Object outcome : outcomes) {
+            assertEquals("positive", outcome);
+        }
+        assertEquals(0, singleFlight.inFlightCount());
+    }
+
+    @Test
+    public void testConcurrentCallersShareOneFailure() throws Exception {
+        IOException error = new IOException("backend unavailable");
+        List<Object> outcomes = burst("key", blockingCall(null, error));
+
+        assertEquals(1, calls.get());
+        for (Object outcome : outcomes) {
+            assertSame(error, outcome);
+        }
+        assertEquals(0, singleFlight.inFlightCount());
+    }
+
+    @Test
+    public void testCompletedCallIsNotCached() throws Exception {
+        release.countDown();
+        Callable<String> call = blockingCall("positive", null);
+
+        singleFlight.execute("key", call);
+        singleFlight.execute("key", call);
+
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testDifferentKeysDoNotShare() throws Exception {
+        release.countDown();
+        final AtomicReference<String> nested = new AtomicReference<>();
+
+        String outer = singleFlight.execute("outer", new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                nested.set(singleFlight.execute("inner",
+                        blockingCall("inner", null)));
+                return "outer";
+            }
+        });
+
+        assertEquals("outer", outer);
+        assertEquals("inner", nested.get());
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testRuntimeExceptionPropagates() throws Exception {
+        try {
+            singleFlight.execute("key", new Callable<String>() {
+                @Override
+                public String call() {
+                    throw new IllegalStateException("boom");
+                }
+            });
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertEquals("boom", e.getMessage());
+        }
+        assertEquals(0, singleFlight.inFlightCount());
+    }
+}